@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.keenetic.account.keycloak.profilecallback;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.jboss.logging.Logger;
+
+/**
+ * DNS resolver for callback hosts, keeping last resolved addresses in memory.
+ * Cached addresses are re-resolved on lookup once they are older than ttl, and by refresh(),
+ * which is called periodically in background. If re-resolving fails, last known addresses
+ * are kept, so temporary DNS problems don't break callbacks, but no longer than MAX_STALE_TTLS ttls
+ * after last successful lookup: then host is dropped from cache, and lookup fails.
+ *
+ * JDK does not expose record TTL, so cache lifetime is configured (dnsCacheTtl).
+ * With ttl &lt;= 0 nothing is cached and every lookup goes to system resolver.
+ *
+ * @author <a href="mailto:hokum@dived.me">Andrey Kotov</a>
+ */
+public class CachingDnsResolver implements DnsResolver {
+
+  static final int MAX_STALE_TTLS = 10;
+
+  private final DnsResolver delegate;
+  private final ConcurrentHashMap<String, Entry> cache;
+  private final long ttlNanos;
+  private final Logger logger;
+
+  private static class Entry {
+    final InetAddress[] addresses;
+    final long resolvedAt;
+    final long checkedAt;
+
+    Entry(InetAddress[] addresses, long resolvedAt, long checkedAt) {
+      this.addresses = addresses;
+      this.resolvedAt = resolvedAt;
+      this.checkedAt = checkedAt;
+    }
+  }
+
+  /**
+   * @param logger logger
+   * @param ttl cache lifetime in seconds, 0 or less disables caching
+   */
+  CachingDnsResolver(Logger logger, int ttl) {
+    this(SystemDefaultDnsResolver.INSTANCE, logger, ttl, TimeUnit.SECONDS);
+  }
+
+  CachingDnsResolver(DnsResolver delegate, Logger logger, long ttl, TimeUnit unit) {
+    this.delegate = delegate;
+    this.cache = new ConcurrentHashMap<>();
+    this.ttlNanos = unit.toNanos(Math.max(ttl, 0));
+    this.logger = logger;
+  }
+
+  @Override
+  public InetAddress[] resolve(String host) throws UnknownHostException {
+    if (ttlNanos == 0) {
+      return delegate.resolve(host);
+    }
+    Entry cached = cache.get(host);
+    if (cached != null && System.nanoTime() - cached.checkedAt < ttlNanos) {
+      return cached.addresses;
+    }
+    return update(host, cached);
+  }
+
+  /**
+   * Re-resolves every cached host, keeping previous addresses on failure
+   */
+  void refresh() {
+    for (Map.Entry<String, Entry> e : cache.entrySet()) {
+      try {
+        update(e.getKey(), e.getValue());
+      } catch (UnknownHostException ignored) {
+        // stale addresses are too old and were dropped, already logged by update
+      }
+    }
+  }
+
+  /**
+   * Resolves host and stores result. If lookup fails, previous addresses are kept for one more ttl,
+   * unless they were resolved more than MAX_STALE_TTLS ttls ago: then they are dropped and exception is thrown
+   */
+  private InetAddress[] update(String host, Entry previous) throws UnknownHostException {
+    long now = System.nanoTime();
+    try {
+      InetAddress[] resolved = delegate.resolve(host);
+      cache.put(host, new Entry(resolved, now, now));
+      return resolved;
+    } catch (UnknownHostException e) {
+      if (previous == null) {
+        throw e;
+      }
+      if (now - previous.resolvedAt >= ttlNanos * MAX_STALE_TTLS) {
+        logger.warn("failed to refresh DNS for " + host + ", dropping cached addresses");
+        cache.remove(host, previous);
+        throw e;
+      }
+      logger.warn("failed to refresh DNS for " + host + ", keeping cached addresses");
+      cache.put(host, new Entry(previous.addresses, previous.resolvedAt, now));
+      return previous.addresses;
+    }
+  }
+
+  void clear() {
+    cache.clear();
+  }
+}
@@ -41,7 +41,6 @@ import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.conn.ConnectTimeoutException;
@@ -55,13 +54,16 @@ public class ProfileCallbackEventListenerProvider  implements EventListenerProvi
   private KeycloakSession session;
   private JsonFactory jsonFactory;
   private ArrayList<HashMap<String, Object>> callbacks;
+  private CloseableHttpClient httpClient;
   protected Logger logger;
 
   ProfileCallbackEventListenerProvider(
           KeycloakSession session,
           Logger logger,
-          ArrayList<HashMap<String, Object>> callbacks) {
+          ArrayList<HashMap<String, Object>> callbacks,
+          CloseableHttpClient httpClient) {
     this.callbacks = callbacks;
+    this.httpClient = httpClient;
     this.session = session;
     this.jsonFactory = new JsonFactory();
     this.logger = logger;
@@ -231,7 +233,7 @@ public class ProfileCallbackEventListenerProvider  implements EventListenerProvi
   }
 
   /**
-   * Posts payload to callback URL
+   * Posts payload to callback URL, using pooled connections of shared http client
    *
    * @param payload - string
    * @return - answer from server
@@ -255,7 +257,11 @@ public class ProfileCallbackEventListenerProvider  implements EventListenerProvi
         if (callback.containsKey("timeout")) {
           int timeout = (int) callback.get("timeout");
           final RequestConfig params =
-                  RequestConfig.custom().setConnectTimeout(timeout).setSocketTimeout(timeout).build();
+                  RequestConfig.custom()
+                          .setConnectTimeout(timeout)
+                          .setSocketTimeout(timeout)
+                          .setConnectionRequestTimeout(timeout) // waiting for connection from shared pool
+                          .build();
           post.setConfig(params);
         }
         if (callback.containsKey("authHeaderName") && callback.containsKey("authHeaderValue")) {
@@ -265,8 +271,8 @@ public class ProfileCallbackEventListenerProvider  implements EventListenerProvi
 
         // send a JSON data
         post.setEntity(new StringEntity(payload, "UTF-8"));
-        try (CloseableHttpClient httpClient = HttpClients.createDefault();
-             CloseableHttpResponse response = httpClient.execute(post)) {
+        // client is shared and owned by factory, only response is closed here
+        try (CloseableHttpResponse response = httpClient.execute(post)) {
           String responseEntity = EntityUtils.toString(response.getEntity());
           if (responseEntity.isEmpty()) {
             responseEntity = "[empty response]";
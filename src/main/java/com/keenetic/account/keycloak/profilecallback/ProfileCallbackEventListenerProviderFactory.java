@@ -17,11 +17,33 @@
 
 package com.keenetic.account.keycloak.profilecallback;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.jboss.logging.Logger;
 import org.keycloak.Config;
 import org.keycloak.events.EventListenerProvider;
@@ -37,11 +59,25 @@ public class ProfileCallbackEventListenerProviderFactory  implements EventListen
   public static final String ID = "profile-callback";
   static ArrayList<HashMap<String, Object>> callbacks = new ArrayList<>();
   static String enforcedEmailChangeAction = "";
+  static int warmConnections = 1;
+  static int dnsCacheTtl = 60;
+  static int keepAlive = 4;
   protected static final Logger logger = Logger.getLogger("profile-callback");
 
+  static final int MAX_CONNECTIONS_PER_ROUTE = 50;
+  static final int MAX_WARM_CONNECTIONS = 20;
+  static final int DEFAULT_REQUEST_TIMEOUT = 30000;
+  static final int DEFAULT_WARMUP_TIMEOUT = 5000;
+  static final int TOP_UP_INTERVAL = 1;
+
+  private CachingDnsResolver dnsResolver;
+  private PoolingHttpClientConnectionManager connectionManager;
+  private CloseableHttpClient httpClient;
+  private ScheduledExecutorService refresher;
+
   @Override
   public EventListenerProvider create(KeycloakSession keycloakSession) {
-    return new ProfileCallbackEventListenerProvider(keycloakSession, logger, callbacks);
+    return new ProfileCallbackEventListenerProvider(keycloakSession, logger, callbacks, httpClient);
   }
 
   /**
@@ -162,16 +198,225 @@ public class ProfileCallbackEventListenerProviderFactory  implements EventListen
     if (callbacks.size() == 0) {
       logger.info("Callbacks configurations not found");
     }
+
+    warmConnections = Math.min(getIntFromScope(scope, "warmConnections", warmConnections), MAX_WARM_CONNECTIONS);
+    dnsCacheTtl = getIntFromScope(scope, "dnsCacheTtl", dnsCacheTtl);
+    keepAlive = Math.max(getIntFromScope(scope, "keepAlive", keepAlive), TOP_UP_INTERVAL + 1);
   }
 
+  /**
+   * Creates shared http client and resolves every configured endpoint, so misconfigured hosts are reported at boot.
+   * Warm connections are opened in background, not to delay server startup with slow endpoints,
+   * so first callbacks don't pay for DNS, TCP and TLS handshake, and topped up every TOP_UP_INTERVAL seconds.
+   * DNS cache is refreshed in background every dnsCacheTtl seconds.
+   */
   @Override
   public void postInit(KeycloakSessionFactory keycloakSessionFactory) {
+    initHttpClient();
+    resolveHosts(true);
+
+    if (callbacks.size() > 0) {
+      refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "profile-callback-refresher");
+        t.setDaemon(true);
+        return t;
+      });
+      refresher.execute(() -> runSafely(() -> openConnections(true)));
+      if (warmConnections > 0) {
+        refresher.scheduleWithFixedDelay(() -> runSafely(() -> openConnections(false)),
+                TOP_UP_INTERVAL, TOP_UP_INTERVAL, TimeUnit.SECONDS);
+      }
+      if (dnsCacheTtl > 0) {
+        refresher.scheduleWithFixedDelay(() -> runSafely(dnsResolver::refresh),
+                dnsCacheTtl, dnsCacheTtl, TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  /**
+   * Runs background task, logging its failure: any exception thrown out of scheduled task cancels all later runs
+   */
+  private void runSafely(Runnable task) {
+    try {
+      task.run();
+    } catch (Exception e) {
+      logger.warn("failed to refresh profile-callback endpoints: " + e);
+    }
+  }
+
+  void initHttpClient() {
+    dnsResolver = new CachingDnsResolver(logger, dnsCacheTtl);
+    connectionManager = new PoolingHttpClientConnectionManager(
+            RegistryBuilder.<ConnectionSocketFactory>create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https", SSLConnectionSocketFactory.getSocketFactory())
+                    .build(),
+            dnsResolver);
+    connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+    connectionManager.setMaxTotal(MAX_CONNECTIONS_PER_ROUTE * Math.max(callbacks.size(), 1));
+    // Idle connections are kept no longer than keepAlive seconds, which should be shorter than server's
+    // keep-alive timeout: POST is not retried, so reusing connection, just closed by server, loses callback.
+    // The price is that warm connections, not used by callbacks, are replaced by new ones every keepAlive seconds.
+    final long keepAliveMillis = TimeUnit.SECONDS.toMillis(keepAlive);
+    httpClient = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setKeepAliveStrategy((response, context) -> {
+              long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+              return duration > 0 && duration < keepAliveMillis ? duration : keepAliveMillis;
+            })
+            .evictIdleConnections(keepAlive, TimeUnit.SECONDS)
+            // for callbacks without timeout: pool is shared and limited, so hung endpoint must not block
+            // Keycloak request threads forever
+            .setDefaultRequestConfig(RequestConfig.custom()
+                    .setConnectTimeout(DEFAULT_REQUEST_TIMEOUT)
+                    .setSocketTimeout(DEFAULT_REQUEST_TIMEOUT)
+                    .setConnectionRequestTimeout(DEFAULT_REQUEST_TIMEOUT)
+                    .build())
+            .disableConnectionState()
+            .build();
+  }
+
+  /**
+   * Resolves callback hosts and fills connection pool up to warmConnections per endpoint
+   *
+   * @param atBoot report failures as errors, otherwise only debug them
+   * @return number of endpoints with unresolved host
+   */
+  int warmUp(boolean atBoot) {
+    int unresolved = resolveHosts(atBoot);
+    openConnections(atBoot);
+    return unresolved;
+  }
+
+  /**
+   * Resolves callback hosts, putting them to DNS cache
+   *
+   * @param atBoot report failures as errors, otherwise only debug them
+   * @return number of endpoints with unresolved host
+   */
+  int resolveHosts(boolean atBoot) {
+    int unresolved = 0;
+    for (HashMap<String, Object> callback : callbacks) {
+      String url = (String) callback.get("url");
+      try {
+        HttpHost host = URIUtils.extractHost(new URI(url));
+        if (host == null) {
+          log(atBoot, "Error: no host in profile-callback URL " + url);
+          unresolved++;
+          continue;
+        }
+        dnsResolver.resolve(host.getHostName());
+      } catch (UnknownHostException ignored) {
+        log(atBoot, "callback to " + url + " will fail: UnknownHostException");
+        unresolved++;
+      } catch (Exception e) {
+        log(atBoot, "failed to resolve host for " + url + ": " + e);
+        unresolved++;
+      }
+    }
+    return unresolved;
+  }
+
+  /**
+   * Fills connection pool up to warmConnections per endpoint.
+   * Connections, which would expire before next top up, are closed first and replaced by new ones,
+   * so pool stays warm, while no connection is kept idle longer than keepAlive.
+   *
+   * @param atBoot report failures as errors, otherwise only debug them
+   */
+  void openConnections(boolean atBoot) {
+    if (warmConnections <= 0) {
+      return;
+    }
+    connectionManager.closeExpiredConnections();
+    connectionManager.closeIdleConnections(keepAlive - TOP_UP_INTERVAL, TimeUnit.SECONDS);
+    for (HashMap<String, Object> callback : callbacks) {
+      String url = (String) callback.get("url");
+      try {
+        int timeout = DEFAULT_WARMUP_TIMEOUT;
+        if (callback.containsKey("timeout")) {
+          timeout = (int) callback.get("timeout");
+        }
+        HttpHost host = URIUtils.extractHost(new URI(url));
+        if (host != null) {
+          openRouteConnections(host, timeout);
+        }
+      } catch (UnknownHostException ignored) {
+        // already reported by resolveHosts
+      } catch (Exception e) {
+        log(atBoot, "failed to warm up connections for " + url + ": " + e);
+      }
+    }
+  }
+
+  private void log(boolean atBoot, String message) {
+    if (atBoot) {
+      logger.error(message);
+    } else {
+      logger.debug(message);
+    }
+  }
+
+  /**
+   * Opens new connections for route, until it has warmConnections, and returns them to pool
+   */
+  private void openRouteConnections(HttpHost host, int timeout) throws Exception {
+    // route must be built the same way DefaultRoutePlanner does, to be found in pool by requests
+    HttpHost target = host;
+    if (target.getPort() <= 0) {
+      target = new HttpHost(target.getHostName(),
+              DefaultSchemePortResolver.INSTANCE.resolve(target), target.getSchemeName());
+    }
+    HttpRoute route = new HttpRoute(target, null, target.getSchemeName().equalsIgnoreCase("https"));
+
+    PoolStats stats = connectionManager.getStats(route);
+    if (stats.getAvailable() + stats.getLeased() >= warmConnections) {
+      return;
+    }
+    int needed = warmConnections - stats.getLeased();
+
+    ArrayList<HttpClientConnection> opened = new ArrayList<>();
+    try {
+      for (int attempt = 0; opened.size() < needed && attempt < needed + MAX_CONNECTIONS_PER_ROUTE; attempt++) {
+        ConnectionRequest request = connectionManager.requestConnection(route, null);
+        HttpClientConnection conn = request.get(timeout, TimeUnit.MILLISECONDS);
+        if (conn.isOpen()) {
+          // pool hands out idle connections first; returning it would extend its keep-alive
+          // without any traffic, so it is dropped and replaced by a new one
+          conn.close();
+          connectionManager.releaseConnection(conn, null, 0, TimeUnit.MILLISECONDS);
+          continue;
+        }
+        opened.add(conn);
+        HttpClientContext context = HttpClientContext.create();
+        connectionManager.connect(conn, route, timeout, context);
+        connectionManager.routeComplete(conn, route, context);
+      }
+    } finally {
+      for (HttpClientConnection conn : opened) {
+        connectionManager.releaseConnection(conn, null, keepAlive, TimeUnit.SECONDS);
+      }
+    }
+  }
 
+  PoolStats getTotalStats() {
+    return connectionManager.getTotalStats();
   }
 
   @Override
   public void close() {
-
+    if (refresher != null) {
+      refresher.shutdownNow();
+    }
+    if (httpClient != null) {
+      try {
+        httpClient.close();
+      } catch (IOException ignored) {
+      }
+    }
+    if (dnsResolver != null) {
+      dnsResolver.clear();
+    }
   }
 
   @Override
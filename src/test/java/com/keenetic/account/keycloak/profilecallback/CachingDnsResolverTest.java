@@ -0,0 +1,122 @@
+package com.keenetic.account.keycloak.profilecallback;
+
+import org.apache.http.conn.DnsResolver;
+import org.jboss.logging.Logger;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CachingDnsResolverTest {
+
+  private static final String HOST = "callback.example.com";
+
+  private final Logger logger = Logger.getLogger(CachingDnsResolverTest.class);
+  private final StubResolver stub = new StubResolver();
+
+  @Test
+  public void cachesWithinTtl() throws Exception {
+    CachingDnsResolver resolver = new CachingDnsResolver(stub, logger, 1, TimeUnit.HOURS);
+
+    InetAddress[] first = resolver.resolve(HOST);
+    assertEquals(first[0], resolver.resolve(HOST)[0]);
+    assertEquals(1, stub.calls.get());
+  }
+
+  @Test
+  public void reResolvesAfterTtl() throws Exception {
+    CachingDnsResolver resolver = new CachingDnsResolver(stub, logger, 50, TimeUnit.MILLISECONDS);
+
+    assertEquals(1, lastOctet(resolver.resolve(HOST)));
+    Thread.sleep(100);
+    assertEquals(2, lastOctet(resolver.resolve(HOST)));
+    assertEquals(2, stub.calls.get());
+  }
+
+  @Test
+  public void keepsLastAddressesWhenLookupFails() throws Exception {
+    CachingDnsResolver resolver = new CachingDnsResolver(stub, logger, 50, TimeUnit.MILLISECONDS);
+
+    assertEquals(1, lastOctet(resolver.resolve(HOST)));
+    stub.fail = true;
+    Thread.sleep(100);
+    assertEquals(1, lastOctet(resolver.resolve(HOST)));
+    assertEquals(2, stub.calls.get());
+  }
+
+  @Test
+  public void dropsStaleAddressesAfterMaxAge() throws Exception {
+    CachingDnsResolver resolver = new CachingDnsResolver(stub, logger, 20, TimeUnit.MILLISECONDS);
+
+    resolver.resolve(HOST);
+    stub.fail = true;
+    Thread.sleep(20 * CachingDnsResolver.MAX_STALE_TTLS + 50);
+    try {
+      resolver.resolve(HOST);
+      fail("stale addresses must not be kept forever");
+    } catch (UnknownHostException ignored) {
+    }
+  }
+
+  @Test
+  public void unknownHostIsNotCached() throws Exception {
+    CachingDnsResolver resolver = new CachingDnsResolver(stub, logger, 1, TimeUnit.HOURS);
+
+    stub.fail = true;
+    try {
+      resolver.resolve(HOST);
+      fail("unknown host must be reported");
+    } catch (UnknownHostException ignored) {
+    }
+    stub.fail = false;
+    assertEquals(2, lastOctet(resolver.resolve(HOST)));
+  }
+
+  @Test
+  public void zeroTtlDelegatesEveryLookup() throws Exception {
+    CachingDnsResolver resolver = new CachingDnsResolver(stub, logger, 0, TimeUnit.SECONDS);
+
+    resolver.resolve(HOST);
+    resolver.resolve(HOST);
+    assertEquals(2, stub.calls.get());
+  }
+
+  @Test
+  public void refreshReResolvesCachedHosts() throws Exception {
+    CachingDnsResolver resolver = new CachingDnsResolver(stub, logger, 1, TimeUnit.HOURS);
+
+    assertEquals(1, lastOctet(resolver.resolve(HOST)));
+    resolver.refresh();
+    assertEquals(2, stub.calls.get());
+    assertEquals(2, lastOctet(resolver.resolve(HOST)));
+    assertEquals(2, stub.calls.get());
+  }
+
+  private static int lastOctet(InetAddress[] addresses) {
+    byte[] bytes = addresses[0].getAddress();
+    return bytes[bytes.length - 1];
+  }
+
+  /**
+   * Returns 10.0.0.N, where N is number of the call, or fails on demand
+   */
+  private static class StubResolver implements DnsResolver {
+
+    final AtomicInteger calls = new AtomicInteger();
+    volatile boolean fail;
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+      int call = calls.incrementAndGet();
+      if (fail) {
+        throw new UnknownHostException(host);
+      }
+      return new InetAddress[]{InetAddress.getByAddress(host, new byte[]{10, 0, 0, (byte) call})};
+    }
+  }
+}
@@ -0,0 +1,197 @@
+package com.keenetic.account.keycloak.profilecallback;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ProfileCallbackEventListenerProviderFactoryTest {
+
+  private ProfileCallbackEventListenerProviderFactory factory;
+
+  @Before
+  public void setUp() {
+    ProfileCallbackEventListenerProviderFactory.callbacks.clear();
+    ProfileCallbackEventListenerProviderFactory.warmConnections = 1;
+    ProfileCallbackEventListenerProviderFactory.dnsCacheTtl = 60;
+    ProfileCallbackEventListenerProviderFactory.keepAlive = 4;
+    factory = new ProfileCallbackEventListenerProviderFactory();
+  }
+
+  @After
+  public void tearDown() {
+    factory.close();
+    ProfileCallbackEventListenerProviderFactory.callbacks.clear();
+  }
+
+  @Test
+  public void warmConnectionsAreReused() throws Exception {
+    try (CountingServer server = new CountingServer()) {
+      ProfileCallbackEventListenerProviderFactory.warmConnections = 3;
+      addCallback("http://127.0.0.1:" + server.getPort() + "/post");
+
+      factory.postInit(null);
+      // client side connect completes before server accepts, so both are awaited
+      waitFor(() -> factory.getTotalStats().getAvailable() == 3 && server.getAccepts() == 3);
+
+      ProfileCallbackEventListenerProvider pcelp = (ProfileCallbackEventListenerProvider) factory.create(null);
+      String answer = pcelp.postCallbacks("users", "{\"this\": \"our test payload\"}");
+      assertEquals("ok\n", answer);
+
+      // connection, answered by server, was accepted before the answer, so no new connection means no new accept
+      assertEquals(3, server.getAccepts());
+    }
+  }
+
+  @Test
+  public void idleWarmConnectionsAreReplacedBeforeKeepAliveExpires() throws Exception {
+    try (CountingServer server = new CountingServer()) {
+      ProfileCallbackEventListenerProviderFactory.warmConnections = 2;
+      ProfileCallbackEventListenerProviderFactory.keepAlive = 2;
+      addCallback("http://127.0.0.1:" + server.getPort() + "/post");
+
+      factory.postInit(null);
+      waitFor(() -> server.getAccepts() >= 2);
+
+      // without traffic, first connections are closed and pool is topped up with new ones
+      waitFor(() -> server.getCloses() >= 2 && server.getAccepts() >= 4);
+      waitFor(() -> factory.getTotalStats().getAvailable() == 2);
+    }
+  }
+
+  @Test
+  public void unknownHostIsReportedWithoutThrowing() {
+    addCallback("http://profile-callback.invalid/post");
+
+    factory.initHttpClient();
+    assertEquals(1, factory.warmUp(true));
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!condition.getAsBoolean()) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("condition not reached in 10 seconds");
+      }
+      Thread.sleep(20);
+    }
+  }
+
+  private void addCallback(String url) {
+    HashMap<String, Object> setting = new HashMap<>();
+    setting.put("url", url);
+    setting.put("realm", "*");
+    setting.put("timeout", 1000);
+    ProfileCallbackEventListenerProviderFactory.callbacks.add(setting);
+  }
+
+  /**
+   * Minimal keep-alive HTTP server, answering "ok" to every request and counting accepted and closed connections
+   */
+  private static class CountingServer implements Closeable {
+
+    private final ServerSocket serverSocket;
+    private final AtomicInteger accepts = new AtomicInteger();
+    private final AtomicInteger closes = new AtomicInteger();
+
+    CountingServer() throws IOException {
+      serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+      Thread acceptor = new Thread(this::acceptLoop);
+      acceptor.setDaemon(true);
+      acceptor.start();
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    int getAccepts() {
+      return accepts.get();
+    }
+
+    int getCloses() {
+      return closes.get();
+    }
+
+    private void acceptLoop() {
+      try {
+        while (true) {
+          Socket socket = serverSocket.accept();
+          accepts.incrementAndGet();
+          Thread worker = new Thread(() -> serve(socket));
+          worker.setDaemon(true);
+          worker.start();
+        }
+      } catch (IOException ignored) {
+        // server socket closed
+      }
+    }
+
+    private void serve(Socket socket) {
+      try (Socket s = socket) {
+        InputStream in = s.getInputStream();
+        OutputStream out = s.getOutputStream();
+        while (true) {
+          int contentLength = 0;
+          String line = readLine(in);
+          if (line == null) {
+            return;
+          }
+          while (!line.isEmpty()) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+              contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+            line = readLine(in);
+            if (line == null) {
+              return;
+            }
+          }
+          for (int i = 0; i < contentLength; i++) {
+            if (in.read() == -1) {
+              return;
+            }
+          }
+          out.write("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 2\r\n\r\nok"
+                  .getBytes(StandardCharsets.US_ASCII));
+          out.flush();
+        }
+      } catch (IOException ignored) {
+        // client closed connection
+      } finally {
+        closes.incrementAndGet();
+      }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      int b;
+      while ((b = in.read()) != -1) {
+        if (b == '\n') {
+          return line.toString("US-ASCII").replace("\r", "");
+        }
+        line.write(b);
+      }
+      return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      serverSocket.close();
+    }
+  }
+}
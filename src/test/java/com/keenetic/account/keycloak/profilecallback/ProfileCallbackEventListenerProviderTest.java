@@ -2,6 +2,8 @@ package com.keenetic.account.keycloak.profilecallback;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
 import org.jboss.logging.Logger;
 import org.junit.Test;
 
@@ -40,8 +42,11 @@ public class ProfileCallbackEventListenerProviderTest {
     callbacks.add(setting1);
 
     ProfileCallbackEventListenerProvider pcelp;
-    pcelp = new ProfileCallbackEventListenerProvider(null, logger, callbacks);
-    String answer = pcelp.postCallbacks("users", "{\"FirstName\": \"Кириллица\"}");
+    String answer;
+    try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+      pcelp = new ProfileCallbackEventListenerProvider(null, logger, callbacks, httpClient);
+      answer = pcelp.postCallbacks("users", "{\"FirstName\": \"Кириллица\"}");
+    }
     // We don't analyze position, don't load json to object. string.contains is enough
     answer = answer.replaceAll("\n", "").replaceAll("\t", "");
     answer = answer.replace("{    ", "{").replace("  }", "}");
@@ -53,8 +58,11 @@ public class ProfileCallbackEventListenerProviderTest {
     callbacks = new ArrayList<>();
     callbacks.add(setting2);
 
-    pcelp = new ProfileCallbackEventListenerProvider(null, logger, callbacks);
-    answer = pcelp.postCallbacks("users", "{\"this\": \"our test payload\"}");
+    // separate client, so connection kept alive by first request is not reused and connect timeout fires
+    try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+      pcelp = new ProfileCallbackEventListenerProvider(null, logger, callbacks, httpClient);
+      answer = pcelp.postCallbacks("users", "{\"this\": \"our test payload\"}");
+    }
     assertTrue(answer.contains("connection timeout for: "));
 
   }